@@ -0,0 +1,491 @@
+package com.jasonneurohr;
+
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * <h1>CapacityFinder</h1>
+ * The CapacityFinder class locates the highest call rate a target SIP device
+ * can sustain. The rate is raised in fixed steps until a step breaches one of
+ * the configured service levels, after which the gap between the last passing
+ * and the first failing rate is narrowed by binary search.
+ * <p>
+ * Each step sends rate * stepSeconds operations paced evenly across the step
+ * and records the success ratio, the 503/timeout ratio and the p50/p99 setup
+ * time of the successful operations. Setup time runs from requesting the
+ * operation to its final response, so executor queueing and a slow TCP/TLS
+ * connect (for example a full accept backlog on the target) count against it.
+ * <p>
+ * At most concurrency operations are in flight at once, so a slow target also
+ * slows sending. The service levels are judged on the operations actually sent,
+ * and a step that breaches them fails even if it sent below its rate. A step
+ * that met every service level but could not send at its rate is marked
+ * invalid, since the client rather than the target could not keep up, and the
+ * search stops there.
+ *
+ * @author Jason Neurohr
+ */
+public class CapacityFinder {
+    // A step must send at no less than this fraction of its rate to pass
+    private static final double MIN_PACING_RATIO = 0.95;
+
+    private final Supplier<CompletableFuture<SipResult>> operation;
+    private int startRate = 1;
+    private int rateStep = 1;
+    private int maxRate = 100;
+    private int resolution = 1;
+    private int stepSeconds = 10;
+    private int coolDownSeconds = 5;
+    private double minSuccessRatio = 0.99;
+    private double maxRejectRatio = 0.01;
+    private double maxP99Millis = 1000;
+    private int concurrency = 100;
+
+    /**
+     * Constructs a CapacityFinder for the provided operation
+     *
+     * @param operation Starts one SIP exchange, for example {@code () -> client.options(target)}
+     */
+    public CapacityFinder(Supplier<CompletableFuture<SipResult>> operation) {
+        this.operation = operation;
+    }
+
+    /**
+     * Sets the rate of the first step
+     *
+     * @param startRate The first rate in operations per second
+     */
+    public void setStartRate(int startRate) {
+        this.startRate = startRate;
+    }
+
+    /**
+     * Sets the amount the rate is raised by for each step
+     *
+     * @param rateStep The step size in operations per second
+     */
+    public void setRateStep(int rateStep) {
+        this.rateStep = rateStep;
+    }
+
+    /**
+     * Sets the highest rate that will be attempted
+     *
+     * @param maxRate The maximum rate in operations per second
+     */
+    public void setMaxRate(int maxRate) {
+        this.maxRate = maxRate;
+    }
+
+    /**
+     * Sets how closely the binary search narrows the saturation point. A resolution
+     * equal to the rate step disables the binary search
+     *
+     * @param resolution The resolution in operations per second
+     */
+    public void setResolution(int resolution) {
+        this.resolution = resolution;
+    }
+
+    /**
+     * Sets how long each rate is held
+     *
+     * @param stepSeconds The step duration in seconds
+     */
+    public void setStepSeconds(int stepSeconds) {
+        this.stepSeconds = stepSeconds;
+    }
+
+    /**
+     * Sets the pause between steps, giving the target time to recover
+     *
+     * @param coolDownSeconds The pause in seconds
+     */
+    public void setCoolDownSeconds(int coolDownSeconds) {
+        this.coolDownSeconds = coolDownSeconds;
+    }
+
+    /**
+     * Sets the lowest ratio of 2xx final responses a step may have and still pass
+     *
+     * @param minSuccessRatio The minimum success ratio, between 0 and 1
+     */
+    public void setMinSuccessRatio(double minSuccessRatio) {
+        this.minSuccessRatio = minSuccessRatio;
+    }
+
+    /**
+     * Sets the highest ratio of 503 responses and timeouts a step may have and still pass
+     *
+     * @param maxRejectRatio The maximum 503/timeout ratio, between 0 and 1
+     */
+    public void setMaxRejectRatio(double maxRejectRatio) {
+        this.maxRejectRatio = maxRejectRatio;
+    }
+
+    /**
+     * Sets the highest p99 setup time a step may have and still pass
+     *
+     * @param maxP99Millis The maximum p99 in milliseconds
+     */
+    public void setMaxP99Millis(double maxP99Millis) {
+        this.maxP99Millis = maxP99Millis;
+    }
+
+    /**
+     * Sets the most operations that may be in flight at once. This should not exceed
+     * the number of threads available to the operation's executor
+     *
+     * @param concurrency The maximum number of in flight operations
+     */
+    public void setConcurrency(int concurrency) {
+        this.concurrency = concurrency;
+    }
+
+    /**
+     * Runs the capacity search
+     *
+     * @return Report This returns every step run and the highest rate that held
+     * @throws InterruptedException if interrupted while pacing or waiting for responses
+     * @throws IllegalArgumentException if the configuration is out of range
+     */
+    public Report run() throws InterruptedException {
+        if (startRate < 1 || rateStep < 1 || resolution < 1 || stepSeconds < 1 || concurrency < 1) {
+            throw new IllegalArgumentException("Rates, resolution, step duration and concurrency must be at least 1");
+        }
+        if (maxRate < startRate) {
+            throw new IllegalArgumentException("Maximum rate must be at least the start rate");
+        }
+        if ((long) maxRate * stepSeconds > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Maximum rate * step duration must not exceed " + Integer.MAX_VALUE);
+        }
+        if (minSuccessRatio < 0 || minSuccessRatio > 1 || maxRejectRatio < 0 || maxRejectRatio > 1) {
+            throw new IllegalArgumentException("Success and reject ratios must be between 0 and 1");
+        }
+        if (maxP99Millis <= 0) {
+            throw new IllegalArgumentException("Maximum p99 must be greater than 0");
+        }
+
+        List<Step> steps = new ArrayList<>();
+        int highestPassingRate = 0;
+        int lowestFailingRate = 0;
+
+        // Ramp in fixed steps until a step fails
+        for (long nextRate = startRate; nextRate <= maxRate; nextRate += rateStep) {
+            int rate = (int) nextRate;
+            Step step = runStep(rate);
+            steps.add(step);
+            if (!step.isValid()) {
+                return new Report(steps, highestPassingRate, lowestFailingRate, rate);
+            }
+            if (!step.isPassed()) {
+                lowestFailingRate = rate;
+                break;
+            }
+            highestPassingRate = rate;
+        }
+
+        // Narrow the gap between the last passing and first failing rate
+        while (lowestFailingRate > 0 && lowestFailingRate - highestPassingRate > resolution) {
+            int rate = highestPassingRate + (lowestFailingRate - highestPassingRate) / 2;
+            Step step = runStep(rate);
+            steps.add(step);
+            if (!step.isValid()) {
+                return new Report(steps, highestPassingRate, lowestFailingRate, rate);
+            }
+            if (step.isPassed()) {
+                highestPassingRate = rate;
+            } else {
+                lowestFailingRate = rate;
+            }
+        }
+
+        return new Report(steps, highestPassingRate, lowestFailingRate, 0);
+    }
+
+    /**
+     * Sends rate * stepSeconds operations evenly paced across the step and measures the outcome.
+     * Sending waits while concurrency operations are in flight. Send slots missed while waiting
+     * are skipped rather than sent in a burst, which shows up as a shortfall in the achieved rate
+     *
+     * @param rate The rate in operations per second
+     * @return Step This returns the measurements for the step
+     * @throws InterruptedException if interrupted while pacing or waiting for responses
+     */
+    private Step runStep(int rate) throws InterruptedException {
+        int attempts = rate * stepSeconds;
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+        List<CompletableFuture<SipResult>> futures = new ArrayList<>(attempts);
+        Semaphore inFlight = new Semaphore(concurrency);
+
+        long start = System.nanoTime();
+        long lastSent = start;
+        for (long slot = 0; slot < attempts; slot++) {
+            long wait = start + slot * intervalNanos - System.nanoTime();
+            if (wait > 0) {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+            inFlight.acquire();
+
+            // Skip to the current slot if waiting for a free slot made us late
+            long now = System.nanoTime();
+            slot = Math.max(slot, (now - start) / intervalNanos);
+            if (slot >= attempts) {
+                inFlight.release();
+                break;
+            }
+
+            lastSent = now;
+            CompletableFuture<SipResult> future = operation.get();
+            future.whenComplete((result, t) -> inFlight.release());
+            futures.add(future);
+        }
+
+        // On schedule the last operation is sent one interval before the step ends
+        int sent = futures.size();
+        long stepNanos = Math.max(attempts * intervalNanos, lastSent - start + intervalNanos);
+        double achievedRate = sent / (stepNanos / 1e9);
+        boolean paced = achievedRate >= rate * MIN_PACING_RATIO;
+
+        int successes = 0;
+        int rejects = 0;
+        int callsLeftUp = 0;
+        long[] latencies = new long[sent];
+        for (CompletableFuture<SipResult> future : futures) {
+            try {
+                SipResult result = future.join();
+                if (result.isCallLeftUp()) {
+                    callsLeftUp++;
+                }
+                if (result.isSuccess()) {
+                    latencies[successes++] = result.getSetupNanos();
+                } else if (result.getStatusCode() == 503) {
+                    rejects++;
+                }
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof SocketTimeoutException) {
+                    rejects++;
+                }
+            }
+        }
+
+        Arrays.sort(latencies, 0, successes);
+        double p50Millis = percentileMillis(latencies, successes, 0.50);
+        double p99Millis = percentileMillis(latencies, successes, 0.99);
+        double successRatio = sent == 0 ? 0 : (double) successes / sent;
+        double rejectRatio = sent == 0 ? 0 : (double) rejects / sent;
+        boolean breached = successRatio < minSuccessRatio || rejectRatio > maxRejectRatio
+                || p99Millis > maxP99Millis;
+
+        // A breach fails the step whatever rate was sent, a shortfall only matters when nothing was breached
+        Step step = new Step(rate, achievedRate, sent, successRatio, rejectRatio, p50Millis, p99Millis,
+                callsLeftUp, breached || paced, paced && !breached);
+        if (coolDownSeconds > 0) {
+            TimeUnit.SECONDS.sleep(coolDownSeconds);
+        }
+        return step;
+    }
+
+    /**
+     * Returns the nearest rank percentile of the sorted latencies
+     *
+     * @param sortedNanos The latencies in nanoseconds, sorted ascending
+     * @param count       The number of latencies in use
+     * @param percentile  The percentile, between 0 and 1
+     * @return double This returns the percentile in milliseconds, or infinity if there are no latencies
+     */
+    private static double percentileMillis(long[] sortedNanos, int count, double percentile) {
+        if (count == 0) {
+            return Double.POSITIVE_INFINITY;
+        }
+        int rank = (int) Math.ceil(percentile * count);
+        return sortedNanos[Math.max(rank, 1) - 1] / 1e6;
+    }
+
+    /**
+     * The measurements for a single rate
+     */
+    public static class Step {
+        private final int rate;
+        private final double achievedRate;
+        private final int attempts;
+        private final double successRatio;
+        private final double rejectRatio;
+        private final double p50Millis;
+        private final double p99Millis;
+        private final int callsLeftUp;
+        private final boolean valid;
+        private final boolean passed;
+
+        Step(int rate, double achievedRate, int attempts, double successRatio, double rejectRatio,
+             double p50Millis, double p99Millis, int callsLeftUp, boolean valid, boolean passed) {
+            this.rate = rate;
+            this.achievedRate = achievedRate;
+            this.attempts = attempts;
+            this.successRatio = successRatio;
+            this.rejectRatio = rejectRatio;
+            this.p50Millis = p50Millis;
+            this.p99Millis = p99Millis;
+            this.callsLeftUp = callsLeftUp;
+            this.valid = valid;
+            this.passed = passed;
+        }
+
+        /**
+         * @return int This returns the rate in operations per second
+         */
+        public int getRate() {
+            return rate;
+        }
+
+        /**
+         * @return double This returns the rate operations were actually sent at, in operations per second
+         */
+        public double getAchievedRate() {
+            return achievedRate;
+        }
+
+        /**
+         * @return int This returns the number of operations sent
+         */
+        public int getAttempts() {
+            return attempts;
+        }
+
+        /**
+         * @return double This returns the ratio of operations with a 2xx final response
+         */
+        public double getSuccessRatio() {
+            return successRatio;
+        }
+
+        /**
+         * @return double This returns the ratio of operations rejected with a 503 or timed out
+         */
+        public double getRejectRatio() {
+            return rejectRatio;
+        }
+
+        /**
+         * @return double This returns the p50 setup time in milliseconds
+         */
+        public double getP50Millis() {
+            return p50Millis;
+        }
+
+        /**
+         * @return double This returns the p99 setup time in milliseconds
+         */
+        public double getP99Millis() {
+            return p99Millis;
+        }
+
+        /**
+         * @return int This returns the number of answered calls not cleared by a 2xx to their BYE
+         */
+        public int getCallsLeftUp() {
+            return callsLeftUp;
+        }
+
+        /**
+         * @return boolean This returns false if the step met every service level but the client
+         * could not send at the step's rate
+         */
+        public boolean isValid() {
+            return valid;
+        }
+
+        /**
+         * @return boolean This returns true if the step sent at its rate and met every service level
+         */
+        public boolean isPassed() {
+            return passed;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%6d/s (%8.1f/s sent) %7d sent %7.2f%% ok %7.2f%% 503/timeout %9.1f ms p50 %9.1f ms p99 %5d left up  %s",
+                    rate, achievedRate, attempts, successRatio * 100, rejectRatio * 100, p50Millis, p99Millis,
+                    callsLeftUp, !valid ? "INVALID" : passed ? "PASS" : "FAIL");
+        }
+    }
+
+    /**
+     * The outcome of a capacity search
+     */
+    public static class Report {
+        private final List<Step> steps;
+        private final int highestPassingRate;
+        private final int lowestFailingRate;
+        private final int clientLimitedRate;
+
+        Report(List<Step> steps, int highestPassingRate, int lowestFailingRate, int clientLimitedRate) {
+            this.steps = Collections.unmodifiableList(steps);
+            this.highestPassingRate = highestPassingRate;
+            this.lowestFailingRate = lowestFailingRate;
+            this.clientLimitedRate = clientLimitedRate;
+        }
+
+        /**
+         * @return List This returns every step in the order it was run
+         */
+        public List<Step> getSteps() {
+            return steps;
+        }
+
+        /**
+         * @return List This returns the passing steps ordered by rate, the latency curve up to saturation
+         */
+        public List<Step> getLatencyCurve() {
+            List<Step> curve = new ArrayList<>();
+            for (Step step : steps) {
+                if (step.isPassed()) {
+                    curve.add(step);
+                }
+            }
+            curve.sort((a, b) -> Integer.compare(a.getRate(), b.getRate()));
+            return curve;
+        }
+
+        /**
+         * @return int This returns the number of answered calls across all steps not cleared by a 2xx to their BYE
+         */
+        public int getCallsLeftUp() {
+            int callsLeftUp = 0;
+            for (Step step : steps) {
+                callsLeftUp += step.getCallsLeftUp();
+            }
+            return callsLeftUp;
+        }
+
+        /**
+         * @return int This returns the highest rate that met every service level, or 0 if none did
+         */
+        public int getHighestPassingRate() {
+            return highestPassingRate;
+        }
+
+        /**
+         * @return int This returns the lowest rate that breached a service level, or 0 if none did
+         */
+        public int getLowestFailingRate() {
+            return lowestFailingRate;
+        }
+
+        /**
+         * @return int This returns the rate the client could not keep up with, ending the search early,
+         * or 0 if it kept up throughout
+         */
+        public int getClientLimitedRate() {
+            return clientLimitedRate;
+        }
+    }
+}
@@ -1,7 +1,15 @@
 package com.jasonneurohr;
 
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
 /**
- * Initialises a SipOp instance and passes command line parameters
+ * Parses command line parameters and either initialises a SipOp instance for a single
+ * exchange, or runs a CapacityFinder against the target in capacity mode
  *
  * @author Jason Neurohr
  */
@@ -9,6 +17,8 @@ public class Main {
 
     public static void main(String[] args) {
         if (args.length > 0) {
+            // Capacity mode options carry case sensitive values such as a keystore path
+            String[] originalArgs = args.clone();
             for (int i = 0; i < args.length; i++) {
                 args[i] = args[i].toLowerCase();
             }
@@ -37,6 +47,8 @@ public class Main {
                 } else {
                     printHelp();
                 }
+            } else if (args[0].equals("capacity")) {
+                runCapacity(originalArgs);
             } else {
                 printHelp();
             }
@@ -45,6 +57,181 @@ public class Main {
         }
     }
 
+    /**
+     * Parses the capacity mode arguments, runs a CapacityFinder and prints the report.
+     * Positional arguments and option names are case insensitive, option values and the
+     * Keystore Path are not
+     *
+     * @param args The command line arguments as given, starting with "capacity"
+     */
+    public static void runCapacity(String[] args) {
+        if (args.length < 4) {
+            printHelp();
+            return;
+        }
+
+        // Positional arguments follow the matching SIP message mode, then [secure <Keystore Path>]
+        // and name=value tuning options in any order
+        String mode = args[1].toLowerCase();
+        int positional;
+        if (mode.equals("options")) {
+            positional = 4;
+        } else if (mode.equals("early") || mode.equals("delayed")) {
+            positional = 6;
+        } else {
+            printHelp();
+            return;
+        }
+        if (args.length < positional) {
+            printHelp();
+            return;
+        }
+
+        String destinationSipUa = args[2].toLowerCase();
+        String sourceIp = args[positional - 1].toLowerCase();
+        String keyStorePath = null;
+        int timeoutMillis = 5000;
+        int concurrency = 100;
+        int startRate = 1;
+        int rateStep = 1;
+        int maxRate = 100;
+        int resolution = 1;
+        int stepSeconds = 10;
+        int coolDownSeconds = 5;
+        double minSuccessRatio = 0.99;
+        double maxRejectRatio = 0.01;
+        double maxP99Millis = 1000;
+        ExecutorService executor = null;
+
+        try {
+            // Parse every option before loading the keystore or starting any threads
+            for (int i = positional; i < args.length; i++) {
+                if (args[i].toLowerCase().equals("secure")) {
+                    // Same "secure <Keystore Path>" form as the other modes
+                    if (i + 1 == args.length) {
+                        printHelp();
+                        return;
+                    }
+                    keyStorePath = args[++i];
+                    continue;
+                }
+
+                String[] pair = args[i].split("=", 2);
+                if (pair.length != 2) {
+                    printHelp();
+                    return;
+                }
+                switch (pair[0].toLowerCase()) {
+                    case "timeout":
+                        timeoutMillis = Integer.parseInt(pair[1]);
+                        break;
+                    case "concurrency":
+                        concurrency = Integer.parseInt(pair[1]);
+                        break;
+                    case "start":
+                        startRate = Integer.parseInt(pair[1]);
+                        break;
+                    case "step":
+                        rateStep = Integer.parseInt(pair[1]);
+                        break;
+                    case "max":
+                        maxRate = Integer.parseInt(pair[1]);
+                        break;
+                    case "resolution":
+                        resolution = Integer.parseInt(pair[1]);
+                        break;
+                    case "duration":
+                        stepSeconds = Integer.parseInt(pair[1]);
+                        break;
+                    case "cooldown":
+                        coolDownSeconds = Integer.parseInt(pair[1]);
+                        break;
+                    case "success":
+                        minSuccessRatio = Double.parseDouble(pair[1]);
+                        break;
+                    case "reject":
+                        maxRejectRatio = Double.parseDouble(pair[1]);
+                        break;
+                    case "p99":
+                        maxP99Millis = Double.parseDouble(pair[1]);
+                        break;
+                    default:
+                        printHelp();
+                        return;
+                }
+            }
+            if (concurrency < 1) {
+                throw new IllegalArgumentException("concurrency must be at least 1");
+            }
+
+            // One thread per permitted in flight operation, so exchanges never queue on the executor
+            executor = Executors.newFixedThreadPool(concurrency);
+
+            SipClient client = new SipClient(sourceIp, keyStorePath != null, keyStorePath, timeoutMillis, executor);
+            Supplier<CompletableFuture<SipResult>> operation;
+            if (mode.equals("options")) {
+                operation = () -> client.options(destinationSipUa);
+            } else {
+                String destinationUriUserPart = args[3].toLowerCase();
+                String destinationUriDomainPart = args[4].toLowerCase();
+                operation = () -> client.invite(destinationSipUa, destinationUriUserPart,
+                        destinationUriDomainPart, mode, true);
+            }
+
+            CapacityFinder finder = new CapacityFinder(operation);
+            finder.setConcurrency(concurrency);
+            finder.setStartRate(startRate);
+            finder.setRateStep(rateStep);
+            finder.setMaxRate(maxRate);
+            finder.setResolution(resolution);
+            finder.setStepSeconds(stepSeconds);
+            finder.setCoolDownSeconds(coolDownSeconds);
+            finder.setMinSuccessRatio(minSuccessRatio);
+            finder.setMaxRejectRatio(maxRejectRatio);
+            finder.setMaxP99Millis(maxP99Millis);
+
+            CapacityFinder.Report report = finder.run();
+            System.out.println("Steps:");
+            for (CapacityFinder.Step step : report.getSteps()) {
+                System.out.println(step);
+            }
+            System.out.println();
+            System.out.println("Latency curve:");
+            for (CapacityFinder.Step step : report.getLatencyCurve()) {
+                System.out.println(step);
+            }
+            System.out.println();
+            System.out.println("Highest sustainable rate: " + report.getHighestPassingRate() + "/s");
+            if (report.getClientLimitedRate() > 0) {
+                // Operations can take up to the timeout, so about rate * timeout may be in flight
+                long needed = (long) Math.ceil(report.getClientLimitedRate() * (timeoutMillis / 1000.0));
+                System.out.println("Search stopped: the client could not send at " + report.getClientLimitedRate()
+                        + "/s with concurrency=" + concurrency + ", raise it to about " + Math.max(needed, concurrency + 1L)
+                        + " (rate * timeout) and run again");
+            } else if (report.getLowestFailingRate() > 0) {
+                System.out.println("Lowest breaching rate: " + report.getLowestFailingRate() + "/s");
+            } else {
+                System.out.println("No rate up to the maximum breached the service levels");
+            }
+            if (report.getCallsLeftUp() > 0) {
+                System.out.println("Warning: " + report.getCallsLeftUp()
+                        + " answered calls were not cleared by their BYE and may still be up on the target");
+            }
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid number: " + e.getMessage());
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+        } catch (IOException | GeneralSecurityException e) {
+            System.err.println("Couldn't load keystore: " + e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (executor != null) {
+                executor.shutdown();
+            }
+        }
+    }
+
     public static void printHelp() {
         System.out.println();
         System.out.println("Syntax:");
@@ -54,6 +241,13 @@ public class Main {
         System.out.println("Early offer INVITE:\t java -jar .\\SipOps.jar early <destination UA> <URI user part> <URI domain part> <Source IP> [secure] [Keystore Path]");
         System.out.println("Delayed offer INVITE:\t java -jar .\\SipOps.jar delayed <destination UA> <URI user part> <URI domain part> <Source IP> [secure] [Keystore Path]");
         System.out.println("OPTIONS:\t\t java -jar .\\SipOps.jar options <destination UA> <Source IP> [secure] [Keystore Path]");
+        System.out.println("Capacity search:\t java -jar .\\SipOps.jar capacity <early|delayed|options> <destination UA> [<URI user part> <URI domain part>] <Source IP> [secure] [Keystore Path] [name=value ...]");
+        System.out.println();
+        System.out.println("Capacity search options (defaults in brackets):");
+        System.out.println("start=<rate> [1]  step=<rate> [1]  max=<rate> [100]  resolution=<rate> [1]");
+        System.out.println("duration=<seconds per step> [10]  cooldown=<seconds between steps> [5]  timeout=<ms> [5000]");
+        System.out.println("concurrency=<max in flight operations> [100]");
+        System.out.println("success=<min 2xx ratio> [0.99]  reject=<max 503/timeout ratio> [0.01]  p99=<max ms> [1000]");
         System.out.println();
         System.out.println("Sample Usage:");
         System.out.println();
@@ -69,5 +263,10 @@ public class Main {
         System.out.println("java -jar .\\SipOps.jar options 192.168.44.122 192.168.44.32");
         System.out.println("java -jar .\\SipOps.jar options 192.168.44.122 192.168.44.32 secure C:\\myJavaKeystore.jks");
         System.out.println();
+        System.out.println("Capacity search:");
+        System.out.println("java -jar .\\SipOps.jar capacity options 192.168.44.122 192.168.44.32 start=10 step=10 max=500");
+        System.out.println("java -jar .\\SipOps.jar capacity options 192.168.44.122 192.168.44.32 secure C:\\myJavaKeystore.jks start=10");
+        System.out.println("java -jar .\\SipOps.jar capacity early 192.168.44.122 1 192.168.44.122 192.168.44.32 step=5 p99=500");
+        System.out.println();
     }
 }
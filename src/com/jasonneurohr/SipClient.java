@@ -0,0 +1,638 @@
+package com.jasonneurohr;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * <h1>SipClient</h1>
+ * The SipClient class provides an asynchronous API for exchanging SIP messages
+ * with a target SIP device. Each operation returns a {@link CompletableFuture}
+ * which completes with a {@link SipResult}, or exceptionally with the
+ * underlying I/O error. The sockets are blocking, so each in flight exchange
+ * holds one thread of the caller supplied executor for its whole duration and
+ * the executor's pool size is the concurrency limit.
+ * <p>
+ * Unlike {@link SipOp} nothing is written to stdout.
+ *
+ * @author Jason Neurohr
+ */
+public class SipClient {
+    private static final int DEFAULT_TIMEOUT_MILLIS = 5000;
+    private static final int MAX_CONTENT_LENGTH = 65536;
+    private static final int MAX_LINE_LENGTH = 8192;
+    private static final int MAX_HEADERS_LENGTH = 65536;
+
+    private final String sourceIp;
+    private final boolean useSipTls;
+    private final String destinationPort;
+    private final SSLSocketFactory sslSocketFactory;
+    private final int timeoutMillis;
+    private final Executor executor;
+
+    /**
+     * Constructs a SipClient using TCP port 5060 and the default timeout
+     *
+     * @param sourceIp The source IP
+     * @param executor The executor the SIP exchanges are run on
+     */
+    public SipClient(String sourceIp, Executor executor) {
+        this.sourceIp = sourceIp;
+        this.useSipTls = false;
+        this.destinationPort = "5060";
+        this.sslSocketFactory = null;
+        this.timeoutMillis = DEFAULT_TIMEOUT_MILLIS;
+        this.executor = executor;
+    }
+
+    /**
+     * Constructs a SipClient with the provided transport configuration
+     *
+     * @param sourceIp      The source IP
+     * @param useSipTls     Use SIP TLS (port 5061) rather than TCP (port 5060)
+     * @param keyStorePath  The Java Keystore used to trust the target, only used with SIP TLS
+     * @param timeoutMillis The connect and read timeout in milliseconds
+     * @param executor      The executor the SIP exchanges are run on
+     * @throws IOException              if the keystore cannot be read
+     * @throws GeneralSecurityException if the keystore cannot be loaded as a trust store
+     */
+    public SipClient(String sourceIp, boolean useSipTls, String keyStorePath, int timeoutMillis,
+                     Executor executor) throws IOException, GeneralSecurityException {
+        this.sourceIp = sourceIp;
+        this.useSipTls = useSipTls;
+        this.timeoutMillis = timeoutMillis;
+        this.executor = executor;
+        if (useSipTls) {
+            this.destinationPort = "5061";
+            this.sslSocketFactory = sslSocketFactory(keyStorePath);
+        } else {
+            this.destinationPort = "5060";
+            this.sslSocketFactory = null;
+        }
+    }
+
+    /**
+     * Sends a SIP OPTIONS message to the target device
+     *
+     * @param destinationSipUa The target SIP device
+     * @return CompletableFuture This returns a future completed with the OPTIONS response
+     */
+    public CompletableFuture<SipResult> options(String destinationSipUa) {
+        return submit(queueNanos -> {
+            String callId = UUID.randomUUID().toString();
+            String request = SipOp.options(destinationSipUa, sourceIp, callId, destinationPort);
+            return exchange("OPTIONS", destinationSipUa, callId, request, null, null, false, queueNanos);
+        });
+    }
+
+    /**
+     * Sends a SIP INVITE message to the target device, ACKs the final response and clears
+     * an answered call with a BYE. The mode parameter selects an (a) early or (b) delayed
+     * offer INVITE
+     *
+     * @param destinationSipUa         The target SIP device
+     * @param destinationUriUserPart   The user part of the SIP uri (preceding the '@')
+     * @param destinationUriDomainPart The domain part of the SIP uri (following the '@')
+     * @param mode                     The offer type, early or delayed
+     * @return CompletableFuture This returns a future completed with the final INVITE response
+     */
+    public CompletableFuture<SipResult> invite(String destinationSipUa, String destinationUriUserPart,
+                                               String destinationUriDomainPart, String mode) {
+        return invite(destinationSipUa, destinationUriUserPart, destinationUriDomainPart, mode, true);
+    }
+
+    /**
+     * Sends a SIP INVITE message to the target device and ACKs the final response. The mode
+     * parameter selects an (a) early or (b) delayed offer INVITE. When hangUp is true
+     * an established call is cleared with a BYE before the connection is closed. When it is
+     * false the answered call is left up on the target until the target's own timers clear it.
+     * An INVITE that times out after a provisional response is CANCELled either way
+     *
+     * @param destinationSipUa         The target SIP device
+     * @param destinationUriUserPart   The user part of the SIP uri (preceding the '@')
+     * @param destinationUriDomainPart The domain part of the SIP uri (following the '@')
+     * @param mode                     The offer type, early or delayed
+     * @param hangUp                   Send a BYE once the call is established
+     * @return CompletableFuture This returns a future completed with the final INVITE response
+     */
+    public CompletableFuture<SipResult> invite(String destinationSipUa, String destinationUriUserPart,
+                                               String destinationUriDomainPart, String mode, boolean hangUp) {
+        return submit(queueNanos -> {
+            String callId = UUID.randomUUID().toString();
+            String request;
+            if (mode.toLowerCase().equals("early")) {
+                request = SipOp.earlyOfferInvite(destinationUriDomainPart, destinationUriUserPart,
+                        sourceIp, "1", callId, destinationPort, null);
+            } else if (mode.toLowerCase().equals("delayed")) {
+                request = SipOp.delayedOfferInvite(destinationUriDomainPart, destinationUriUserPart,
+                        sourceIp, "1", callId, destinationPort);
+            } else {
+                throw new IllegalArgumentException("Unknown INVITE mode: " + mode);
+            }
+            return exchange("INVITE", destinationSipUa, callId, request,
+                    destinationUriUserPart, destinationUriDomainPart, hangUp, queueNanos);
+        });
+    }
+
+    /**
+     * Runs a blocking SIP exchange on the executor, completing the returned future
+     * with its result or with the exception it threw
+     *
+     * @param operation The SIP exchange
+     * @return CompletableFuture This returns a future completed by the exchange
+     */
+    private CompletableFuture<SipResult> submit(Operation operation) {
+        CompletableFuture<SipResult> future = new CompletableFuture<>();
+        long submitted = System.nanoTime();
+        try {
+            executor.execute(() -> {
+                try {
+                    future.complete(operation.run(System.nanoTime() - submitted));
+                } catch (Throwable t) {
+                    future.completeExceptionally(t);
+                }
+            });
+        } catch (RuntimeException e) {
+            // e.g. RejectedExecutionException from a saturated or shut down executor
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Opens a connection to the target, sends the request and reads responses until
+     * a final response is received. For an INVITE the final response is ACKed, and
+     * a 2xx is optionally cleared with a BYE whose outcome is recorded on the result
+     *
+     * @param method                   The SIP request method
+     * @param destinationSipUa         The target SIP device
+     * @param callId                   The callID
+     * @param request                  The SIP request message
+     * @param destinationUriUserPart   The user part of the SIP uri, only used to ACK an INVITE
+     * @param destinationUriDomainPart The domain part of the SIP uri, only used to ACK an INVITE
+     * @param hangUp                   Send a BYE once an INVITE is answered
+     * @param queueNanos               The time the exchange waited on the executor
+     * @return SipResult This returns the final response and timings
+     * @throws IOException if the connection fails, times out or closes before a final response
+     */
+    private SipResult exchange(String method, String destinationSipUa, String callId, String request,
+                               String destinationUriUserPart, String destinationUriDomainPart,
+                               boolean hangUp, long queueNanos) throws IOException {
+        long connectStart = System.nanoTime();
+        try (Socket socket = openSocket(destinationSipUa)) {
+            long connectNanos = System.nanoTime() - connectStart;
+            BufferedOutputStream os = new BufferedOutputStream(socket.getOutputStream());
+            BufferedInputStream is = new BufferedInputStream(socket.getInputStream());
+
+            long sendTime = System.nanoTime();
+            os.write(request.getBytes());
+            os.flush();
+
+            List<Integer> provisionalStatusCodes = new ArrayList<>();
+            long firstResponseNanos = -1;
+
+            while (true) {
+                Response response;
+                try {
+                    response = readResponse(is);
+                } catch (SocketTimeoutException e) {
+                    if (method.equals("INVITE") && !provisionalStatusCodes.isEmpty()) {
+                        cancel(os, is, callId, destinationUriUserPart, destinationUriDomainPart, e);
+                    }
+                    throw e;
+                }
+                if (response == null) {
+                    throw new EOFException("Connection closed before a final response to " + method);
+                }
+
+                long responseNanos = System.nanoTime() - sendTime;
+                if (firstResponseNanos < 0) {
+                    firstResponseNanos = responseNanos;
+                }
+
+                if (response.statusCode < 200) {
+                    provisionalStatusCodes.add(response.statusCode);
+                    continue;
+                }
+
+                int byeStatusCode = 0;
+                if (method.equals("INVITE")) {
+                    byeStatusCode = acknowledge(os, is, response, callId,
+                            destinationUriUserPart, destinationUriDomainPart, hangUp);
+                }
+
+                return new SipResult(method, sentCallId(request), response.statusCode, response.reasonPhrase,
+                        response.headers, response.body, provisionalStatusCodes, queueNanos, connectNanos,
+                        firstResponseNanos, responseNanos, byeStatusCode);
+            }
+        }
+    }
+
+    /**
+     * ACKs the final response to an INVITE and, for a 2xx when hangUp is true, clears
+     * the call with a BYE sent to the remote target from the response's Contact header
+     *
+     * @param os                       The output stream
+     * @param is                       The input stream
+     * @param response                 The final response to the INVITE
+     * @param callId                   The callID
+     * @param destinationUriUserPart   The user part of the SIP uri (preceding the '@')
+     * @param destinationUriDomainPart The domain part of the SIP uri (following the '@')
+     * @param hangUp                   Send a BYE if the call was answered
+     * @return int This returns the final response status to the BYE, 0 if no BYE was sent,
+     * or -1 if the BYE got no final response
+     * @throws IOException if the ACK cannot be sent
+     */
+    private int acknowledge(OutputStream os, InputStream is, Response response, String callId,
+                            String destinationUriUserPart, String destinationUriDomainPart,
+                            boolean hangUp) throws IOException {
+        String responseTag = responseTag(response.headers);
+        if (response.statusCode >= 300) {
+            // RFC 3261 17.1.1.3, a non-2xx final response is ACKed by the client transaction
+            String ackMessage = SipOp.nonSuccessAck(destinationUriDomainPart, destinationUriUserPart,
+                    sourceIp, responseTag, callId, "1", destinationPort);
+            os.write(ackMessage.getBytes());
+            os.flush();
+            return 0;
+        }
+
+        String ackMessage = SipOp.ack(destinationUriDomainPart, destinationUriUserPart, sourceIp,
+                responseTag, callId, "1", destinationPort);
+        os.write(ackMessage.getBytes());
+        os.flush();
+        if (!hangUp) {
+            return 0;
+        }
+
+        // RFC 3261 12.2.1.1, requests within the dialog go to the remote target from the Contact header
+        String requestUri = contactUri(response.headers);
+        if (requestUri == null) {
+            requestUri = "sip:" + destinationUriUserPart + "@" + destinationUriDomainPart + ":"
+                    + destinationPort + ";transport=tcp";
+        }
+        try {
+            String byeMessage = SipOp.bye(requestUri, destinationUriDomainPart, destinationUriUserPart, sourceIp,
+                    responseTag, callId, "2", destinationPort);
+            os.write(byeMessage.getBytes());
+            os.flush();
+            Response byeResponse = awaitFinalResponse(is, "BYE");
+            return byeResponse == null ? -1 : byeResponse.statusCode;
+        } catch (IOException e) {
+            // The call was answered, so a failed tear down is recorded on the result rather than thrown
+            return -1;
+        }
+    }
+
+    /**
+     * CANCELs an INVITE that timed out after a provisional response, so a ringing call is not
+     * left on the target. Any failure is added to the timeout as a suppressed exception
+     *
+     * @param os                       The output stream
+     * @param is                       The input stream
+     * @param callId                   The callID
+     * @param destinationUriUserPart   The user part of the SIP uri (preceding the '@')
+     * @param destinationUriDomainPart The domain part of the SIP uri (following the '@')
+     * @param timeout                  The timeout the INVITE failed with
+     */
+    private void cancel(OutputStream os, InputStream is, String callId, String destinationUriUserPart,
+                        String destinationUriDomainPart, SocketTimeoutException timeout) {
+        try {
+            String cancelMessage = SipOp.cancel(destinationUriDomainPart, destinationUriUserPart, sourceIp,
+                    callId, "1", destinationPort);
+            os.write(cancelMessage.getBytes());
+            os.flush();
+
+            // The INVITE still gets a final response, normally a 487 which must be ACKed. If the call
+            // was answered before the CANCEL arrived it is ACKed and cleared with a BYE instead
+            Response response = awaitFinalResponse(is, "INVITE");
+            if (response == null) {
+                timeout.addSuppressed(
+                        new EOFException("Connection closed before a final response to the CANCELled INVITE"));
+                return;
+            }
+            int byeStatusCode = acknowledge(os, is, response, callId,
+                    destinationUriUserPart, destinationUriDomainPart, true);
+            if (response.statusCode < 300 && (byeStatusCode < 200 || byeStatusCode >= 300)) {
+                timeout.addSuppressed(new IOException("Call answered after the CANCEL was not cleared, BYE status "
+                        + byeStatusCode));
+            }
+        } catch (IOException e) {
+            timeout.addSuppressed(e);
+        }
+    }
+
+    /**
+     * Reads messages until the final response to the given method is received
+     *
+     * @param is     The input stream
+     * @param method The SIP request method the response is for
+     * @return Response This returns the final response, or null if the far end closed the connection
+     * @throws IOException if the read fails or times out
+     */
+    private static Response awaitFinalResponse(InputStream is, String method) throws IOException {
+        Response response;
+        while ((response = readResponse(is)) != null) {
+            List<String> cseq = response.headers.get("CSeq");
+            if (response.statusCode >= 200 && cseq != null && cseq.get(0).endsWith(method)) {
+                return response;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reads the next SIP response, skipping keep-alives and any requests the far end sends
+     *
+     * @param is The input stream
+     * @return Response This returns the response, or null if the far end closed the connection
+     * @throws IOException if the read fails, times out or the message is malformed
+     */
+    private static Response readResponse(InputStream is) throws IOException {
+        String startLine;
+        while ((startLine = readLineOrNull(is)) != null) {
+            if (startLine.isEmpty()) {
+                // Keep-alive CRLF between messages
+                continue;
+            }
+
+            Map<String, List<String>> headers = readHeaders(is);
+            String body = readBody(is, headers);
+
+            // Ignore any requests the far end sends on the connection
+            if (!startLine.startsWith("SIP/2.0 ")) {
+                continue;
+            }
+
+            String[] statusLine = startLine.split(" ", 3);
+            int statusCode;
+            try {
+                statusCode = Integer.parseInt(statusLine[1].trim());
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid status line: " + startLine);
+            }
+            String reasonPhrase = statusLine.length > 2 ? statusLine[2] : "";
+            return new Response(statusCode, reasonPhrase, headers, body);
+        }
+        return null;
+    }
+
+    /**
+     * Returns the URI from the Contact header of a response
+     *
+     * @param headers The response headers
+     * @return String This returns the Contact URI, or null if there was none
+     */
+    private static String contactUri(Map<String, List<String>> headers) {
+        List<String> contact = headers.get("Contact");
+        if (contact == null) {
+            // Compact form
+            contact = headers.get("m");
+        }
+        if (contact == null) {
+            return null;
+        }
+
+        String value = contact.get(0);
+        int open = value.indexOf('<');
+        int close = value.indexOf('>', open + 1);
+        String uri;
+        if (open >= 0 && close > open) {
+            uri = value.substring(open + 1, close);
+        } else {
+            // Without angle brackets any parameters belong to the header, not the URI
+            int semicolon = value.indexOf(';');
+            uri = semicolon < 0 ? value : value.substring(0, semicolon);
+        }
+        uri = uri.trim();
+        return uri.isEmpty() || uri.equals("*") ? null : uri;
+    }
+
+    /**
+     * Returns the Call-ID header value of a request exactly as it was sent, since the
+     * INVITE builders qualify the call ID with the source IP
+     *
+     * @param request The SIP request message
+     * @return String This returns the Call-ID header value
+     */
+    private static String sentCallId(String request) {
+        for (String line : request.split("\r\n")) {
+            if (line.startsWith("Call-ID:")) {
+                return line.substring("Call-ID:".length()).trim();
+            }
+        }
+        throw new IllegalArgumentException("Request has no Call-ID header");
+    }
+
+    /**
+     * Opens a TCP or SIP TLS connection to the target with the configured timeouts applied.
+     * For SIP TLS the handshake is completed before returning
+     *
+     * @param destinationSipUa The target SIP device
+     * @return Socket This returns the connected socket
+     * @throws IOException if the connection cannot be established
+     */
+    private Socket openSocket(String destinationSipUa) throws IOException {
+        int port = Integer.parseInt(destinationPort);
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(destinationSipUa, port), timeoutMillis);
+            socket.setSoTimeout(timeoutMillis);
+            if (useSipTls) {
+                socket = sslSocketFactory.createSocket(socket, destinationSipUa, port, true);
+                // Handshake now so it runs under the timeout and counts as connect time
+                ((SSLSocket) socket).startHandshake();
+            }
+            return socket;
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads the header fields of a SIP message up to the blank line
+     *
+     * @param is The input stream
+     * @return Map This returns the header fields keyed case insensitively by name
+     * @throws IOException if the headers are too long or the stream closes mid message
+     */
+    private static Map<String, List<String>> readHeaders(InputStream is) throws IOException {
+        Map<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        int headersLength = 0;
+        String line;
+        while (!(line = readLine(is)).isEmpty()) {
+            headersLength += line.length() + 2;
+            if (headersLength > MAX_HEADERS_LENGTH) {
+                throw new IOException("Message headers exceed " + MAX_HEADERS_LENGTH + " bytes");
+            }
+            int colon = line.indexOf(':');
+            if (colon < 0) {
+                continue;
+            }
+            String name = line.substring(0, colon).trim();
+            String value = line.substring(colon + 1).trim();
+            headers.computeIfAbsent(name, k -> new ArrayList<>()).add(value);
+        }
+        return headers;
+    }
+
+    /**
+     * Reads the body of a SIP message as given by its Content-Length
+     *
+     * @param is      The input stream
+     * @param headers The message headers
+     * @return String This returns the body, or an empty string if there is none
+     * @throws IOException if the Content-Length is invalid or the stream closes mid message
+     */
+    private static String readBody(InputStream is, Map<String, List<String>> headers) throws IOException {
+        List<String> contentLength = headers.get("Content-Length");
+        if (contentLength == null) {
+            // Compact form
+            contentLength = headers.get("l");
+        }
+        if (contentLength == null) {
+            return "";
+        }
+
+        int length;
+        try {
+            length = Integer.parseInt(contentLength.get(0));
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid Content-Length: " + contentLength.get(0));
+        }
+        if (length < 0 || length > MAX_CONTENT_LENGTH) {
+            throw new IOException("Content-Length out of range: " + length);
+        }
+
+        byte[] body = new byte[length];
+        int amountRead = 0;
+        while (amountRead < body.length) {
+            int read = is.read(body, amountRead, body.length - amountRead);
+            if (read < 0) {
+                throw new EOFException("Connection closed mid message body");
+            }
+            amountRead += read;
+        }
+        return new String(body, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads a CRLF terminated line
+     *
+     * @param is The input stream
+     * @return String This returns the line without its terminator
+     * @throws IOException if the read fails or the stream closes mid line
+     */
+    private static String readLine(InputStream is) throws IOException {
+        String line = readLineOrNull(is);
+        if (line == null) {
+            throw new EOFException("Connection closed mid message");
+        }
+        return line;
+    }
+
+    /**
+     * Reads a CRLF terminated line, allowing the stream to end cleanly between messages
+     *
+     * @param is The input stream
+     * @return String This returns the line without its terminator, or null at end of stream
+     * @throws IOException if the line is too long, the read fails or the stream closes mid line
+     */
+    private static String readLineOrNull(InputStream is) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = is.read()) != '\n') {
+            if (b < 0) {
+                if (line.size() == 0) {
+                    return null;
+                }
+                throw new EOFException("Connection closed mid line");
+            }
+            if (line.size() >= MAX_LINE_LENGTH) {
+                throw new IOException("Line exceeds " + MAX_LINE_LENGTH + " bytes");
+            }
+            line.write(b);
+        }
+        String s = new String(line.toByteArray(), StandardCharsets.UTF_8);
+        return s.endsWith("\r") ? s.substring(0, s.length() - 1) : s;
+    }
+
+    /**
+     * Returns the tag the far end SIP UA added to the To header
+     *
+     * @param headers The response headers
+     * @return String This returns the To tag, or an empty string if there was none
+     */
+    private static String responseTag(Map<String, List<String>> headers) {
+        List<String> to = headers.get("To");
+        if (to == null) {
+            // Compact form
+            to = headers.get("t");
+        }
+        if (to == null || !to.get(0).contains("tag=")) {
+            return "";
+        }
+        return to.get(0).split("tag=")[1].split(";")[0];
+    }
+
+    /**
+     * Builds an SSLSocketFactory trusting the certificates in the provided Java Keystore
+     *
+     * @param keyStorePath The Java Keystore path
+     * @return SSLSocketFactory This returns the socket factory
+     * @throws IOException              if the keystore cannot be read
+     * @throws GeneralSecurityException if the keystore cannot be loaded as a trust store
+     */
+    private static SSLSocketFactory sslSocketFactory(String keyStorePath)
+            throws IOException, GeneralSecurityException {
+        KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
+        try (InputStream in = new FileInputStream(keyStorePath)) {
+            keyStore.load(in, null);
+        }
+        TrustManagerFactory trustManagerFactory =
+                TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trustManagerFactory.init(keyStore);
+        SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(null, trustManagerFactory.getTrustManagers(), null);
+        return sslContext.getSocketFactory();
+    }
+
+    /**
+     * A SIP response read from the connection
+     */
+    private static final class Response {
+        private final int statusCode;
+        private final String reasonPhrase;
+        private final Map<String, List<String>> headers;
+        private final String body;
+
+        Response(int statusCode, String reasonPhrase, Map<String, List<String>> headers, String body) {
+            this.statusCode = statusCode;
+            this.reasonPhrase = reasonPhrase;
+            this.headers = headers;
+            this.body = body;
+        }
+    }
+
+    /**
+     * A blocking SIP exchange, given the time it waited on the executor
+     */
+    private interface Operation {
+        SipResult run(long queueNanos) throws Exception;
+    }
+}
@@ -335,36 +335,8 @@ public class SipOp {
                                       String destinationPort) {
 
         try {
-
-            String sdpContent = "v=0\r\n" +
-                    "o=SP 12345 IN IP4 " + sourceIp + "\r\n" +
-                    "s=-\r\n" +
-                    "p=11111\r\n" +
-                    "t=0 0\r\n" +
-                    "m=audio " + randPort() + " RTP/AVP 8 101\r\n" +
-                    "c=IN IP4 " + sourceIp + "\r\n" +
-                    "a=rtpmap:8 PCMA/8000\r\n" +
-                    "a=rtpmap:101 telephone-event/8000\r\n" +
-                    "a=fmtp:101 0-15\r\n" +
-                    "a=ptime:20\r\n" +
-                    "a=recvonly\r\n\r\n";
-
-            String earlyOfferMessage = "INVITE sip:" + destinationUriUserPart + "@" + destinationUriDomainPart + ":" + destinationPort + ";transport=tcp SIP/2.0\r\n" +
-                    "Via: SIP/2.0/TCP " + sourceIp + ":" + destinationPort + ";branch=1234\r\n" +
-                    "From: <sip:99999@" + sourceIp + ">;tag=456\r\n" +
-                    "To: <sip:" + destinationUriUserPart + "@" + destinationUriDomainPart + ":" + destinationPort + ">\r\n" +
-                    "Call-ID: " + callId + "@" + sourceIp + "\r\n" +
-                    "CSeq: " + cseq + " INVITE\r\n" +
-                    "Content-Type: application/sdp\r\n" +
-                    "Contact: <sip:99999@" + sourceIp + ":" + destinationPort + ";transport=tcp>\r\n" +
-                    "User-Agent: SIP Probe\r\n" +
-                    "Max-Forwards: 10\r\n" +
-                    "Supported: replaces,timer\r\n" +
-                    "P-Asserted-Identity: <sip:99999@" + sourceIp + ">\r\n" +
-                    "Allow: INVITE,BYE,CANCEL,ACK,REGISTER,SUBSCRIBE,NOTIFY,MESSAGE,INFO,REFER,OPTIONS,PUBLISH,PRACK\r\n" +
-                    "Content-Type: application/sdp\r\n" +
-                    "Content-Length: " + sdpContent.length() + "\r\n\r\n" +
-                    sdpContent;
+            String earlyOfferMessage = earlyOfferInvite(destinationUriDomainPart, destinationUriUserPart,
+                    sourceIp, cseq, callId, destinationPort, null);
 
             System.out.println();
             System.out.println("Sending:");
@@ -394,36 +366,8 @@ public class SipOp {
                                       String sourceIp, BufferedOutputStream os, String cseq, String callId,
                                       String destinationPort, String responseTag) {
         try {
-
-            String sdpContent = "v=0\r\n" +
-                    "o=SP 12345 IN IP4 " + sourceIp + "\r\n" +
-                    "s=-\r\n" +
-                    "p=11111\r\n" +
-                    "t=0 0\r\n" +
-                    "m=audio " + randPort() + " RTP/AVP 8 101\r\n" +
-                    "c=IN IP4 " + sourceIp + "\r\n" +
-                    "a=rtpmap:8 PCMA/8000\r\n" +
-                    "a=rtpmap:101 telephone-event/8000\r\n" +
-                    "a=fmtp:101 0-15\r\n" +
-                    "a=ptime:20\r\n" +
-                    "a=recvonly\r\n\r\n";
-
-            String earlyOfferMessage = "INVITE sip:" + destinationUriUserPart + "@" + destinationUriDomainPart + ":" + destinationPort + ";transport=tcp SIP/2.0\r\n" +
-                    "Via: SIP/2.0/TCP " + sourceIp + ":" + destinationPort + ";branch=1234\r\n" +
-                    "From: <sip:99999@" + sourceIp + ">;tag=456\r\n" +
-                    "To: <sip:" + destinationUriUserPart + "@" + destinationUriDomainPart + ":" + destinationPort + ">;tag=" + responseTag + "\r\n" + // TODO: utilise To header from earlier messaging
-                    "Call-ID: " + callId + "@" + sourceIp + "\r\n" +
-                    "CSeq: " + cseq + " INVITE\r\n" +
-                    "Content-Type: application/sdp\r\n" +
-                    "Contact: <sip:99999@" + sourceIp + ":" + destinationPort + ";transport=tcp>\r\n" +
-                    "User-Agent: SIP Probe\r\n" +
-                    "Max-Forwards: 10\r\n" +
-                    "Supported: replaces,timer\r\n" +
-                    "P-Asserted-Identity: <sip:99999@" + sourceIp + ">\r\n" +
-                    "Allow: INVITE,BYE,CANCEL,ACK,REGISTER,SUBSCRIBE,NOTIFY,MESSAGE,INFO,REFER,OPTIONS,PUBLISH,PRACK\r\n" +
-                    "Content-Type: application/sdp\r\n" +
-                    "Content-Length: " + sdpContent.length() + "\r\n\r\n" +
-                    sdpContent;
+            String earlyOfferMessage = earlyOfferInvite(destinationUriDomainPart, destinationUriUserPart,
+                    sourceIp, cseq, callId, destinationPort, responseTag);
 
             System.out.println();
             System.out.println("Sending:");
@@ -450,21 +394,8 @@ public class SipOp {
                                         String sourceIp, BufferedOutputStream os, String cseq, String callId,
                                         String destinationPort) {
         try {
-            String delayedOfferMessage = "INVITE sip:" + destinationUriUserPart + "@" + destinationUriDomainPart + ":" + destinationPort + ";transport=tcp SIP/2.0\r\n" +
-                    "Via: SIP/2.0/TCP " + sourceIp + ":" + destinationPort + ";branch=1234\r\n" +
-                    "From: <sip:99999@" + sourceIp + ">;tag=456\r\n" +
-                    "To: <sip:" + destinationUriUserPart + "@" + destinationUriDomainPart + ":" + destinationPort + ">\r\n" +
-                    "Call-ID: " + callId + "@" + sourceIp + "\r\n" +
-                    "CSeq: " + cseq + " INVITE\r\n" +
-                    "Content-Type: application/sdp\r\n" +
-                    "Contact: <sip:99999@" + sourceIp + ":" + destinationPort + ";transport=tcp>\r\n" +
-                    "User-Agent: SIP Probe\r\n" +
-                    "Max-Forwards: 10\r\n" +
-                    "Supported: replaces,timer\r\n" +
-                    "P-Asserted-Identity: <sip:99999@" + sourceIp + ">\r\n" +
-                    "Allow: INVITE,BYE,CANCEL,ACK,REGISTER,SUBSCRIBE,NOTIFY,MESSAGE,INFO,REFER,OPTIONS,PUBLISH,PRACK\r\n" +
-                    "Content-Type: application/sdp\r\n" +
-                    "Content-Length: 0\r\n\r\n";
+            String delayedOfferMessage = delayedOfferInvite(destinationUriDomainPart, destinationUriUserPart,
+                    sourceIp, cseq, callId, destinationPort);
 
             os.write(delayedOfferMessage.getBytes());
             os.flush();
@@ -489,17 +420,8 @@ public class SipOp {
                          String sourceIp, BufferedOutputStream os, String responseTag, String callId, String cseq,
                          String destinationPort) {
         try {
-            String ackMessage = "ACK sip:" + destinationUriDomainPart + ":" + destinationPort + ";transport=tcp SIP/2.0\r\n" +
-                    "Via: SIP/2.0/TCP " + sourceIp + ":" + destinationPort + ";branch=1234\r\n" +
-                    "From: <sip:99999@" + sourceIp + ">;tag=456\r\n" +
-                    "To: <sip:" + destinationUriUserPart + "@" + destinationUriDomainPart + ":" + destinationPort + ">;tag=" + responseTag + "\r\n" + // TODO: utilise To header from earlier messaging
-                    "CSeq: " + cseq + " ACK\r\n" +
-                    "Call-ID: " + callId + "@" + sourceIp + "\r\n" +
-                    "Contact: <sip:99999@" + sourceIp + ":" + destinationPort + ";transport=tcp>\r\n" +
-                    "User-Agent: SIP Probe\r\n" +
-                    "Allow: INVITE,ACK,BYE,CANCEL,OPTIONS,INFO,MESSAGE,SUBSCRIBE,NOTIFY,PRACK,UPDATE,REFER\r\n" +
-                    "Max-Forwards: 10\r\n" +
-                    "Content-Length: 0\r\n\r\n";
+            String ackMessage = ack(destinationUriDomainPart, destinationUriUserPart,
+                    sourceIp, responseTag, callId, cseq, destinationPort);
 
             System.out.println();
             System.out.println("Sending:");
@@ -523,14 +445,7 @@ public class SipOp {
     private void sendOptions(String destinationSipUa, String sourceIp, BufferedOutputStream os, String callId,
                              String destinationPort) {
         try {
-            String optionsMessage = "OPTIONS sip:" + destinationSipUa + ":" + destinationPort + ";transport=tcp SIP/2.0\r\n" +
-                    "Via: SIP/2.0/TCP " + sourceIp + ":" + destinationPort + ";branch=1234\r\n" +
-                    "From: \"SIP Probe\"<sip:99999@" + sourceIp + ":" + destinationPort + ">;tag=5678\r\n" +
-                    "To: <sip:" + destinationSipUa + ":" + destinationPort + ">\r\n" +
-                    "Call-ID: " + callId + "\r\n" +
-                    "CSeq: 1 OPTIONS\r\n" +
-                    "Max-Forwards: 0\r\n" +
-                    "Content-Length: 0\r\n\r\n";
+            String optionsMessage = options(destinationSipUa, sourceIp, callId, destinationPort);
 
             os.write(optionsMessage.getBytes());
             os.flush();
@@ -540,12 +455,213 @@ public class SipOp {
         }
     }
 
+    /**
+     * Builds a SIP early offer INVITE message. When a responseTag is supplied it is
+     * added to the To header such that a RE-INVITE can be sent
+     *
+     * @param destinationUriDomainPart The target SIP device
+     * @param destinationUriUserPart   The user part of the SIP uri (preceding the '@')
+     * @param sourceIp                 The source IP
+     * @param cseq                     The SIP command sequence
+     * @param callId                   The callID
+     * @param destinationPort          The destination port
+     * @param responseTag              The tag returned from the far end SIP UA, or null
+     * @return String This returns the INVITE message
+     */
+    static String earlyOfferInvite(String destinationUriDomainPart, String destinationUriUserPart,
+                                   String sourceIp, String cseq, String callId, String destinationPort,
+                                   String responseTag) {
+        String sdpContent = "v=0\r\n" +
+                "o=SP 12345 IN IP4 " + sourceIp + "\r\n" +
+                "s=-\r\n" +
+                "p=11111\r\n" +
+                "t=0 0\r\n" +
+                "m=audio " + randPort() + " RTP/AVP 8 101\r\n" +
+                "c=IN IP4 " + sourceIp + "\r\n" +
+                "a=rtpmap:8 PCMA/8000\r\n" +
+                "a=rtpmap:101 telephone-event/8000\r\n" +
+                "a=fmtp:101 0-15\r\n" +
+                "a=ptime:20\r\n" +
+                "a=recvonly\r\n\r\n";
+
+        String toTag = responseTag == null ? "" : ";tag=" + responseTag;
+
+        return "INVITE sip:" + destinationUriUserPart + "@" + destinationUriDomainPart + ":" + destinationPort + ";transport=tcp SIP/2.0\r\n" +
+                "Via: SIP/2.0/TCP " + sourceIp + ":" + destinationPort + ";branch=1234\r\n" +
+                "From: <sip:99999@" + sourceIp + ">;tag=456\r\n" +
+                "To: <sip:" + destinationUriUserPart + "@" + destinationUriDomainPart + ":" + destinationPort + ">" + toTag + "\r\n" + // TODO: utilise To header from earlier messaging
+                "Call-ID: " + callId + "@" + sourceIp + "\r\n" +
+                "CSeq: " + cseq + " INVITE\r\n" +
+                "Content-Type: application/sdp\r\n" +
+                "Contact: <sip:99999@" + sourceIp + ":" + destinationPort + ";transport=tcp>\r\n" +
+                "User-Agent: SIP Probe\r\n" +
+                "Max-Forwards: 10\r\n" +
+                "Supported: replaces,timer\r\n" +
+                "P-Asserted-Identity: <sip:99999@" + sourceIp + ">\r\n" +
+                "Allow: INVITE,BYE,CANCEL,ACK,REGISTER,SUBSCRIBE,NOTIFY,MESSAGE,INFO,REFER,OPTIONS,PUBLISH,PRACK\r\n" +
+                "Content-Type: application/sdp\r\n" +
+                "Content-Length: " + sdpContent.length() + "\r\n\r\n" +
+                sdpContent;
+    }
+
+    /**
+     * Builds a SIP delayed offer INVITE message
+     *
+     * @param destinationUriDomainPart The target SIP device
+     * @param destinationUriUserPart   The user part of the SIP uri (preceding the '@')
+     * @param sourceIp                 The source IP
+     * @param cseq                     The SIP command sequence
+     * @param callId                   The callID
+     * @param destinationPort          The destination port
+     * @return String This returns the INVITE message
+     */
+    static String delayedOfferInvite(String destinationUriDomainPart, String destinationUriUserPart,
+                                     String sourceIp, String cseq, String callId, String destinationPort) {
+        return "INVITE sip:" + destinationUriUserPart + "@" + destinationUriDomainPart + ":" + destinationPort + ";transport=tcp SIP/2.0\r\n" +
+                "Via: SIP/2.0/TCP " + sourceIp + ":" + destinationPort + ";branch=1234\r\n" +
+                "From: <sip:99999@" + sourceIp + ">;tag=456\r\n" +
+                "To: <sip:" + destinationUriUserPart + "@" + destinationUriDomainPart + ":" + destinationPort + ">\r\n" +
+                "Call-ID: " + callId + "@" + sourceIp + "\r\n" +
+                "CSeq: " + cseq + " INVITE\r\n" +
+                "Content-Type: application/sdp\r\n" +
+                "Contact: <sip:99999@" + sourceIp + ":" + destinationPort + ";transport=tcp>\r\n" +
+                "User-Agent: SIP Probe\r\n" +
+                "Max-Forwards: 10\r\n" +
+                "Supported: replaces,timer\r\n" +
+                "P-Asserted-Identity: <sip:99999@" + sourceIp + ">\r\n" +
+                "Allow: INVITE,BYE,CANCEL,ACK,REGISTER,SUBSCRIBE,NOTIFY,MESSAGE,INFO,REFER,OPTIONS,PUBLISH,PRACK\r\n" +
+                "Content-Type: application/sdp\r\n" +
+                "Content-Length: 0\r\n\r\n";
+    }
+
+    /**
+     * Builds a SIP ACK message for a received 200 OK
+     *
+     * @param destinationUriDomainPart The target SIP device
+     * @param destinationUriUserPart   The user part of the SIP uri (preceding the '@')
+     * @param sourceIp                 The source IP
+     * @param responseTag              The tag returned from the far end SIP UA
+     * @param callId                   The callID
+     * @param cseq                     The SIP command sequence
+     * @param destinationPort          The destination port
+     * @return String This returns the ACK message
+     */
+    static String ack(String destinationUriDomainPart, String destinationUriUserPart, String sourceIp,
+                      String responseTag, String callId, String cseq, String destinationPort) {
+        return "ACK sip:" + destinationUriDomainPart + ":" + destinationPort + ";transport=tcp SIP/2.0\r\n" +
+                "Via: SIP/2.0/TCP " + sourceIp + ":" + destinationPort + ";branch=1234\r\n" +
+                "From: <sip:99999@" + sourceIp + ">;tag=456\r\n" +
+                "To: <sip:" + destinationUriUserPart + "@" + destinationUriDomainPart + ":" + destinationPort + ">;tag=" + responseTag + "\r\n" + // TODO: utilise To header from earlier messaging
+                "CSeq: " + cseq + " ACK\r\n" +
+                "Call-ID: " + callId + "@" + sourceIp + "\r\n" +
+                "Contact: <sip:99999@" + sourceIp + ":" + destinationPort + ";transport=tcp>\r\n" +
+                "User-Agent: SIP Probe\r\n" +
+                "Allow: INVITE,ACK,BYE,CANCEL,OPTIONS,INFO,MESSAGE,SUBSCRIBE,NOTIFY,PRACK,UPDATE,REFER\r\n" +
+                "Max-Forwards: 10\r\n" +
+                "Content-Length: 0\r\n\r\n";
+    }
+
+    /**
+     * Builds a SIP ACK message for a received non-2xx final response. Unlike the ACK for a
+     * 200 OK this is part of the INVITE transaction, so it reuses the INVITE Request-URI and branch
+     *
+     * @param destinationUriDomainPart The target SIP device
+     * @param destinationUriUserPart   The user part of the SIP uri (preceding the '@')
+     * @param sourceIp                 The source IP
+     * @param responseTag              The tag returned from the far end SIP UA
+     * @param callId                   The callID
+     * @param cseq                     The SIP command sequence of the INVITE
+     * @param destinationPort          The destination port
+     * @return String This returns the ACK message
+     */
+    static String nonSuccessAck(String destinationUriDomainPart, String destinationUriUserPart, String sourceIp,
+                                String responseTag, String callId, String cseq, String destinationPort) {
+        return "ACK sip:" + destinationUriUserPart + "@" + destinationUriDomainPart + ":" + destinationPort + ";transport=tcp SIP/2.0\r\n" +
+                "Via: SIP/2.0/TCP " + sourceIp + ":" + destinationPort + ";branch=1234\r\n" +
+                "From: <sip:99999@" + sourceIp + ">;tag=456\r\n" +
+                "To: <sip:" + destinationUriUserPart + "@" + destinationUriDomainPart + ":" + destinationPort + ">;tag=" + responseTag + "\r\n" +
+                "Call-ID: " + callId + "@" + sourceIp + "\r\n" +
+                "CSeq: " + cseq + " ACK\r\n" +
+                "Max-Forwards: 10\r\n" +
+                "Content-Length: 0\r\n\r\n";
+    }
+
+    /**
+     * Builds a SIP CANCEL message for an INVITE that has had a provisional response. It reuses
+     * the INVITE Request-URI, branch and CSeq number as the CANCEL must match the INVITE transaction
+     *
+     * @param destinationUriDomainPart The target SIP device
+     * @param destinationUriUserPart   The user part of the SIP uri (preceding the '@')
+     * @param sourceIp                 The source IP
+     * @param callId                   The callID
+     * @param cseq                     The SIP command sequence of the INVITE
+     * @param destinationPort          The destination port
+     * @return String This returns the CANCEL message
+     */
+    static String cancel(String destinationUriDomainPart, String destinationUriUserPart, String sourceIp,
+                         String callId, String cseq, String destinationPort) {
+        return "CANCEL sip:" + destinationUriUserPart + "@" + destinationUriDomainPart + ":" + destinationPort + ";transport=tcp SIP/2.0\r\n" +
+                "Via: SIP/2.0/TCP " + sourceIp + ":" + destinationPort + ";branch=1234\r\n" +
+                "From: <sip:99999@" + sourceIp + ">;tag=456\r\n" +
+                "To: <sip:" + destinationUriUserPart + "@" + destinationUriDomainPart + ":" + destinationPort + ">\r\n" +
+                "Call-ID: " + callId + "@" + sourceIp + "\r\n" +
+                "CSeq: " + cseq + " CANCEL\r\n" +
+                "Max-Forwards: 10\r\n" +
+                "Content-Length: 0\r\n\r\n";
+    }
+
+    /**
+     * Builds a SIP BYE message to clear an established call
+     *
+     * @param requestUri               The remote target, the Contact URI from the 200 OK
+     * @param destinationUriDomainPart The target SIP device
+     * @param destinationUriUserPart   The user part of the SIP uri (preceding the '@')
+     * @param sourceIp                 The source IP
+     * @param responseTag              The tag returned from the far end SIP UA
+     * @param callId                   The callID
+     * @param cseq                     The SIP command sequence
+     * @param destinationPort          The destination port
+     * @return String This returns the BYE message
+     */
+    static String bye(String requestUri, String destinationUriDomainPart, String destinationUriUserPart,
+                      String sourceIp, String responseTag, String callId, String cseq, String destinationPort) {
+        return "BYE " + requestUri + " SIP/2.0\r\n" +
+                "Via: SIP/2.0/TCP " + sourceIp + ":" + destinationPort + ";branch=5678\r\n" +
+                "From: <sip:99999@" + sourceIp + ">;tag=456\r\n" +
+                "To: <sip:" + destinationUriUserPart + "@" + destinationUriDomainPart + ":" + destinationPort + ">;tag=" + responseTag + "\r\n" +
+                "Call-ID: " + callId + "@" + sourceIp + "\r\n" +
+                "CSeq: " + cseq + " BYE\r\n" +
+                "User-Agent: SIP Probe\r\n" +
+                "Max-Forwards: 10\r\n" +
+                "Content-Length: 0\r\n\r\n";
+    }
+
+    /**
+     * Builds a SIP OPTIONS message
+     *
+     * @param destinationSipUa The target SIP device
+     * @param sourceIp         The source IP
+     * @param callId           The callID
+     * @param destinationPort  The destination port
+     * @return String This returns the OPTIONS message
+     */
+    static String options(String destinationSipUa, String sourceIp, String callId, String destinationPort) {
+        return "OPTIONS sip:" + destinationSipUa + ":" + destinationPort + ";transport=tcp SIP/2.0\r\n" +
+                "Via: SIP/2.0/TCP " + sourceIp + ":" + destinationPort + ";branch=1234\r\n" +
+                "From: \"SIP Probe\"<sip:99999@" + sourceIp + ":" + destinationPort + ">;tag=5678\r\n" +
+                "To: <sip:" + destinationSipUa + ":" + destinationPort + ">\r\n" +
+                "Call-ID: " + callId + "\r\n" +
+                "CSeq: 1 OPTIONS\r\n" +
+                "Max-Forwards: 0\r\n" +
+                "Content-Length: 0\r\n\r\n";
+    }
+
     /**
      * This returns a random high range port number
      *
      * @return String This returns a random high range port number
      */
-    private String randPort() {
+    private static String randPort() {
         int randomNum;
         randomNum = (int) (Math.random() * (65535 - 1024) + 1);
         return ((Integer) randomNum).toString();
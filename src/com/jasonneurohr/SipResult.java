@@ -0,0 +1,223 @@
+package com.jasonneurohr;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <h1>SipResult</h1>
+ * The SipResult class holds the outcome of a single SIP exchange performed by
+ * a {@link SipClient}: the final response, any provisional responses and the
+ * timings observed along the way.
+ *
+ * @author Jason Neurohr
+ */
+public class SipResult {
+    private final String method;
+    private final String callId;
+    private final int statusCode;
+    private final String reasonPhrase;
+    private final Map<String, List<String>> headers;
+    private final String sdp;
+    private final List<Integer> provisionalStatusCodes;
+    private final long queueNanos;
+    private final long connectNanos;
+    private final long firstResponseNanos;
+    private final long finalResponseNanos;
+    private final int byeStatusCode;
+
+    /**
+     * Constructs a SipResult with the provided response details and timings
+     *
+     * @param method                 The SIP request method
+     * @param callId                 The Call-ID header value sent
+     * @param statusCode             The status code of the final response
+     * @param reasonPhrase           The reason phrase of the final response
+     * @param headers                The headers of the final response
+     * @param sdp                    The SDP body of the final response, empty if none
+     * @param provisionalStatusCodes The status codes of any provisional responses
+     * @param queueNanos             The time the exchange waited on the executor before starting
+     * @param connectNanos           The time taken to open the connection
+     * @param firstResponseNanos     The time from sending the request to the first response
+     * @param finalResponseNanos     The time from sending the request to the final response
+     * @param byeStatusCode          The final response status to the BYE clearing the call, 0 if no BYE
+     *                               was sent, or -1 if the BYE got no final response
+     */
+    SipResult(String method, String callId, int statusCode, String reasonPhrase,
+              Map<String, List<String>> headers, String sdp, List<Integer> provisionalStatusCodes,
+              long queueNanos, long connectNanos, long firstResponseNanos, long finalResponseNanos,
+              int byeStatusCode) {
+        this.method = method;
+        this.callId = callId;
+        this.statusCode = statusCode;
+        this.reasonPhrase = reasonPhrase;
+        this.headers = Collections.unmodifiableMap(headers);
+        this.sdp = sdp;
+        this.provisionalStatusCodes = Collections.unmodifiableList(provisionalStatusCodes);
+        this.queueNanos = queueNanos;
+        this.connectNanos = connectNanos;
+        this.firstResponseNanos = firstResponseNanos;
+        this.finalResponseNanos = finalResponseNanos;
+        this.byeStatusCode = byeStatusCode;
+    }
+
+    /**
+     * Returns the SIP request method
+     *
+     * @return String This returns the SIP request method, for example INVITE or OPTIONS
+     */
+    public String getMethod() {
+        return method;
+    }
+
+    /**
+     * Returns the call ID
+     *
+     * @return String This returns the Call-ID header value exactly as sent, for example
+     * "uuid@sourceIp" for an INVITE
+     */
+    public String getCallId() {
+        return callId;
+    }
+
+    /**
+     * Returns the status code of the final response
+     *
+     * @return int This returns the status code of the final response
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * Returns the reason phrase of the final response
+     *
+     * @return String This returns the reason phrase of the final response
+     */
+    public String getReasonPhrase() {
+        return reasonPhrase;
+    }
+
+    /**
+     * Returns true if the final response was a 2xx
+     *
+     * @return boolean This returns true if the final response was a 2xx
+     */
+    public boolean isSuccess() {
+        return statusCode >= 200 && statusCode < 300;
+    }
+
+    /**
+     * Returns the headers of the final response. Header names are matched case insensitively
+     *
+     * @return Map This returns the headers of the final response
+     */
+    public Map<String, List<String>> getHeaders() {
+        return headers;
+    }
+
+    /**
+     * Returns the first value of the named header in the final response
+     *
+     * @param name The header name
+     * @return String This returns the first value of the header, or null if not present
+     */
+    public String getHeader(String name) {
+        List<String> values = headers.get(name);
+        if (values == null || values.isEmpty()) {
+            return null;
+        }
+        return values.get(0);
+    }
+
+    /**
+     * Returns the SDP body of the final response
+     *
+     * @return String This returns the SDP body, or an empty string if there was none
+     */
+    public String getSdp() {
+        return sdp;
+    }
+
+    /**
+     * Returns the status codes of any provisional (1xx) responses, in the order received
+     *
+     * @return List This returns the provisional status codes
+     */
+    public List<Integer> getProvisionalStatusCodes() {
+        return provisionalStatusCodes;
+    }
+
+    /**
+     * Returns the time the exchange waited on the executor before starting
+     *
+     * @return long This returns the queue time in nanoseconds
+     */
+    public long getQueueNanos() {
+        return queueNanos;
+    }
+
+    /**
+     * Returns the time taken to open the connection (including the TLS handshake when secure)
+     *
+     * @return long This returns the connect time in nanoseconds
+     */
+    public long getConnectNanos() {
+        return connectNanos;
+    }
+
+    /**
+     * Returns the time from sending the request to receiving the first response
+     *
+     * @return long This returns the first response time in nanoseconds
+     */
+    public long getFirstResponseNanos() {
+        return firstResponseNanos;
+    }
+
+    /**
+     * Returns the time from sending the request to receiving the final response.
+     * For an INVITE this is the call setup time
+     *
+     * @return long This returns the final response time in nanoseconds
+     */
+    public long getFinalResponseNanos() {
+        return finalResponseNanos;
+    }
+
+    /**
+     * Returns the time from requesting the exchange to receiving the final response,
+     * including executor queueing and connection setup
+     *
+     * @return long This returns the total setup time in nanoseconds
+     */
+    public long getSetupNanos() {
+        return queueNanos + connectNanos + finalResponseNanos;
+    }
+
+    /**
+     * Returns the final response status to the BYE sent to clear an answered INVITE
+     *
+     * @return int This returns the BYE status code, 0 if no BYE was sent, or -1 if the BYE
+     * got no final response
+     */
+    public int getByeStatusCode() {
+        return byeStatusCode;
+    }
+
+    /**
+     * Returns true if an INVITE was answered and the call was not cleared with a 2xx to its BYE,
+     * so it may still be up on the target
+     *
+     * @return boolean This returns true if the call may still be up on the target
+     */
+    public boolean isCallLeftUp() {
+        return method.equals("INVITE") && isSuccess() && (byeStatusCode < 200 || byeStatusCode >= 300);
+    }
+
+    @Override
+    public String toString() {
+        return method + " " + callId + " -> " + statusCode + " " + reasonPhrase +
+                " (" + (finalResponseNanos / 1000000) + " ms)";
+    }
+}